@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.common.jobs;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
+
+/**
+ * A handler whose work is done by a {@link CoordinatedJob}. The handler
+ * is disabled while a job of its family is already waiting to run so
+ * subclasses need only supply the job for each request.
+ */
+public abstract class AbstractCoordinatedHandler extends AbstractHandler {
+
+	private final Object family;
+
+	private final IJobFamilyListener familyListener = new IJobFamilyListener() {
+		@Override
+		public void familyChanged(Object family) {
+			updateEnablement();
+		}
+	};
+
+	/**
+	 * @param family the family of the jobs created by this handler
+	 */
+	protected AbstractCoordinatedHandler(Object family) {
+		this.family = family;
+		JobCoordinator.getDefault().addFamilyListener(family, familyListener);
+		updateEnablement();
+	}
+
+	/**
+	 * @return the family of the jobs created by this handler
+	 */
+	protected Object getFamily() {
+		return family;
+	}
+
+	@Override
+	public Object execute(ExecutionEvent event) {
+		CoordinatedJob job = createJob(event);
+		if (job != null) {
+			JobCoordinator.getDefault().schedule(job);
+		}
+		return null;
+	}
+
+	/**
+	 * Create the job carrying out the request. Called on the UI thread
+	 * so any input needed from the user should be gathered here.
+	 *
+	 * @param event
+	 * @return the job to schedule or null if there is nothing to do
+	 */
+	protected abstract CoordinatedJob createJob(ExecutionEvent event);
+
+	/**
+	 * Only enabled while no job of the family is waiting to run. Handler
+	 * listeners expect to be notified on the UI thread.
+	 */
+	private void updateEnablement() {
+		Display display = PlatformUI.getWorkbench().getDisplay();
+		if (display.isDisposed()) {
+			return;
+		}
+
+		display.asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				setBaseEnabled(!JobCoordinator.getDefault().isQueued(family));
+			}
+		});
+	}
+
+	@Override
+	public void dispose() {
+		JobCoordinator.getDefault().removeFamilyListener(family, familyListener);
+		super.dispose();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.common.jobs;
+
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * A job that is scheduled through the {@link JobCoordinator} rather
+ * than directly. Each coordinated job belongs to a single family and
+ * at most one job of a family is ever waiting to run.
+ */
+public abstract class CoordinatedJob extends Job {
+
+	private final Object family;
+
+	/**
+	 * @param name
+	 * @param family the family this job belongs to
+	 * @param rule the scheduling rule the job must hold while running
+	 */
+	public CoordinatedJob(String name, Object family, ISchedulingRule rule) {
+		super(name);
+		this.family = family;
+		setRule(rule);
+		setPriority(Job.LONG);
+	}
+
+	/**
+	 * @return the family of this job
+	 */
+	public Object getFamily() {
+		return family;
+	}
+
+	@Override
+	public boolean belongsTo(Object family) {
+		return this.family.equals(family);
+	}
+
+	/**
+	 * Called by the coordinator when a duplicate request arrives while
+	 * this job is still waiting to run. The duplicate is discarded so
+	 * subclasses should take on any of its parameters that the newer
+	 * request should win.
+	 *
+	 * Called with the coordinator locked and never once the job has
+	 * started running.
+	 *
+	 * @param duplicate the newer request being discarded
+	 */
+	protected void coalesce(CoordinatedJob duplicate) {
+		// Nothing to merge by default
+	}
+}
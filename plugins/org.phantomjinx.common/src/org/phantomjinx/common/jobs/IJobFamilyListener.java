@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.common.jobs;
+
+/**
+ * Notified when the queued or running state of a job family changes.
+ */
+public interface IJobFamilyListener {
+
+	/**
+	 * Called from whichever thread changed the state, which is rarely
+	 * the UI thread.
+	 *
+	 * @param family
+	 */
+	void familyChanged(Object family);
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.common.jobs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+
+/**
+ * Schedules the long running jobs of the phantomjinx tools so that
+ * repeated requests do not pile up behind each other.
+ *
+ * For each family there is at most one job running and at most one
+ * job waiting. A request arriving while a job of its family is already
+ * waiting is coalesced into that waiting job rather than being queued
+ * again, so any number of clicks made during a pass result in a single
+ * follow up pass.
+ *
+ * Each tool owns the identifier of its own family. Ordering between
+ * families is left to the jobs' scheduling rules: every job holds the
+ * {@link #TOOLS_RULE} so a version check requested during a sync only
+ * starts once the sync has finished. Jobs should only add the rules of
+ * the resources they actually modify, leaving the rest of the workspace
+ * free for builds and editors.
+ */
+public class JobCoordinator {
+
+	/**
+	 * Rule held by every coordinated job so that only one of the tools
+	 * works on the projects at a time. It conflicts with nothing else.
+	 */
+	public static final ISchedulingRule TOOLS_RULE = new ISchedulingRule() {
+
+		@Override
+		public boolean contains(ISchedulingRule rule) {
+			return rule == this;
+		}
+
+		@Override
+		public boolean isConflicting(ISchedulingRule rule) {
+			return rule == this;
+		}
+	};
+
+	private static JobCoordinator instance;
+
+	private final Map<Object, CoordinatedJob> waitingJobs = new HashMap<Object, CoordinatedJob>();
+
+	private final Map<Object, CoordinatedJob> runningJobs = new HashMap<Object, CoordinatedJob>();
+
+	private final Map<Object, List<IJobFamilyListener>> listeners = new HashMap<Object, List<IJobFamilyListener>>();
+
+	private final JobChangeAdapter jobTracker = new JobChangeAdapter() {
+
+		@Override
+		public void running(IJobChangeEvent event) {
+			CoordinatedJob job = (CoordinatedJob) event.getJob();
+			synchronized (JobCoordinator.this) {
+				if (waitingJobs.get(job.getFamily()) == job) {
+					waitingJobs.remove(job.getFamily());
+				}
+				runningJobs.put(job.getFamily(), job);
+			}
+			fireFamilyChanged(job.getFamily());
+		}
+
+		@Override
+		public void done(IJobChangeEvent event) {
+			CoordinatedJob job = (CoordinatedJob) event.getJob();
+			job.removeJobChangeListener(this);
+			synchronized (JobCoordinator.this) {
+				// A waiting job can be done without running if it was cancelled
+				if (waitingJobs.get(job.getFamily()) == job) {
+					waitingJobs.remove(job.getFamily());
+				}
+				if (runningJobs.get(job.getFamily()) == job) {
+					runningJobs.remove(job.getFamily());
+				}
+			}
+			fireFamilyChanged(job.getFamily());
+		}
+	};
+
+	private Logger logger = Logger
+			.getLogger(this.getClass().getCanonicalName());
+
+	/**
+	 * @return the shared coordinator
+	 */
+	public static synchronized JobCoordinator getDefault() {
+		if (instance == null) {
+			instance = new JobCoordinator();
+		}
+		return instance;
+	}
+
+	private JobCoordinator() {
+	}
+
+	/**
+	 * Schedule the given job unless a job of the same family is already
+	 * waiting to run, in which case the given job is coalesced into it.
+	 *
+	 * @param job
+	 * @return true if the job was scheduled, false if it was coalesced
+	 */
+	public boolean schedule(CoordinatedJob job) {
+		synchronized (this) {
+			CoordinatedJob waitingJob = waitingJobs.get(job.getFamily());
+			if (waitingJob != null) {
+				logger.info("Coalescing request into waiting job " + waitingJob.getName()); //$NON-NLS-1$
+				waitingJob.coalesce(job);
+				return false;
+			}
+
+			waitingJobs.put(job.getFamily(), job);
+			job.addJobChangeListener(jobTracker);
+			job.schedule();
+		}
+
+		fireFamilyChanged(job.getFamily());
+		return true;
+	}
+
+	/**
+	 * @param family
+	 * @return true if a job of the given family is waiting to run
+	 */
+	public synchronized boolean isQueued(Object family) {
+		return waitingJobs.containsKey(family);
+	}
+
+	/**
+	 * @param family
+	 * @return true if a job of the given family is running
+	 */
+	public synchronized boolean isRunning(Object family) {
+		return runningJobs.containsKey(family);
+	}
+
+	/**
+	 * @param family
+	 * @param listener
+	 */
+	public synchronized void addFamilyListener(Object family, IJobFamilyListener listener) {
+		List<IJobFamilyListener> familyListeners = listeners.get(family);
+		if (familyListeners == null) {
+			familyListeners = new ArrayList<IJobFamilyListener>();
+			listeners.put(family, familyListeners);
+		}
+
+		familyListeners.add(listener);
+	}
+
+	/**
+	 * @param family
+	 * @param listener
+	 */
+	public synchronized void removeFamilyListener(Object family, IJobFamilyListener listener) {
+		List<IJobFamilyListener> familyListeners = listeners.get(family);
+		if (familyListeners == null) {
+			return;
+		}
+
+		familyListeners.remove(listener);
+		if (familyListeners.isEmpty()) {
+			listeners.remove(family);
+		}
+	}
+
+	private void fireFamilyChanged(Object family) {
+		List<IJobFamilyListener> familyListeners;
+		synchronized (this) {
+			familyListeners = listeners.get(family);
+			if (familyListeners == null) {
+				return;
+			}
+
+			// Notify outside the lock in case a listener calls back in
+			familyListeners = new ArrayList<IJobFamilyListener>(familyListeners);
+		}
+
+		for (IJobFamilyListener listener : familyListeners) {
+			listener.familyChanged(family);
+		}
+	}
+}
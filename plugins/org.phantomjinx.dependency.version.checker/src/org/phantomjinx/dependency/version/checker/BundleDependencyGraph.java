@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.dependency.version.checker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.BundleSpecification;
+import org.eclipse.pde.core.plugin.IPluginModelBase;
+import org.eclipse.pde.internal.core.PluginModelManager;
+
+/**
+ * The Require-Bundle relationships between the plugins in the workspace.
+ * Plugins outside of the workspace cannot be edited so are left out.
+ */
+public class BundleDependencyGraph {
+
+	private final Map<String, IPluginModelBase> models = new LinkedHashMap<String, IPluginModelBase>();
+
+	private final Map<String, Set<String>> requiredBundles = new HashMap<String, Set<String>>();
+
+	private final Map<String, Set<String>> dependentBundles = new HashMap<String, Set<String>>();
+
+	/**
+	 * @param modelManager
+	 * @param projectNames the names of the workspace projects
+	 */
+	public BundleDependencyGraph(PluginModelManager modelManager, Collection<String> projectNames) {
+		for (IPluginModelBase pluginModel : modelManager.getAllModels(true)) {
+			BundleDescription bundleDescription = pluginModel.getBundleDescription();
+			if (bundleDescription == null || !projectNames.contains(bundleDescription.getSymbolicName())) {
+				continue;
+			}
+
+			models.put(bundleDescription.getSymbolicName(), pluginModel);
+			requiredBundles.put(bundleDescription.getSymbolicName(), new LinkedHashSet<String>());
+			dependentBundles.put(bundleDescription.getSymbolicName(), new LinkedHashSet<String>());
+		}
+
+		for (IPluginModelBase pluginModel : models.values()) {
+			String name = pluginModel.getBundleDescription().getSymbolicName();
+			for (BundleSpecification bundleSpec : pluginModel.getBundleDescription().getRequiredBundles()) {
+				if (!models.containsKey(bundleSpec.getName())) {
+					continue;
+				}
+
+				requiredBundles.get(name).add(bundleSpec.getName());
+				dependentBundles.get(bundleSpec.getName()).add(name);
+			}
+		}
+	}
+
+	/**
+	 * @return the names of all the workspace bundles
+	 */
+	public Set<String> getBundles() {
+		return models.keySet();
+	}
+
+	/**
+	 * @param name
+	 * @return the model of the workspace bundle or null if not in the workspace
+	 */
+	public IPluginModelBase getModel(String name) {
+		return models.get(name);
+	}
+
+	/**
+	 * @param name
+	 * @return the workspace bundles directly required by the given bundle
+	 */
+	public Set<String> getRequiredBundles(String name) {
+		return requiredBundles.get(name);
+	}
+
+	/**
+	 * @param name
+	 * @return the workspace bundles directly requiring the given bundle
+	 */
+	public Set<String> getDependentBundles(String name) {
+		return dependentBundles.get(name);
+	}
+
+	/**
+	 * @param names
+	 * @return the given bundles and every workspace bundle they transitively require
+	 */
+	public Set<String> getRequiredClosure(Collection<String> names) {
+		return getClosure(names, requiredBundles, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Only the direct dependents are included since the ranges of their
+	 * own dependents are unaffected by a change to the given bundles.
+	 *
+	 * @param names
+	 * @return the given bundles and the workspace bundles directly requiring them
+	 */
+	public Set<String> getDependentClosure(Collection<String> names) {
+		return getClosure(names, dependentBundles, 1);
+	}
+
+	/**
+	 * Order the given bundles so that each comes after the bundles it
+	 * requires. Bundles in the same wave do not require one another so
+	 * can be processed together. Any bundles caught in a Require-Bundle
+	 * cycle are put together in a final wave, so callers must not rely
+	 * on that wave's requirements having been processed first.
+	 *
+	 * @param names
+	 * @return the waves of bundles in dependency order
+	 */
+	public List<Set<String>> getTopologicalWaves(Collection<String> names) {
+		Map<String, Integer> inDegrees = new HashMap<String, Integer>();
+		for (String name : names) {
+			if (models.containsKey(name)) {
+				inDegrees.put(name, 0);
+			}
+		}
+
+		for (String name : inDegrees.keySet()) {
+			int inDegree = 0;
+			for (String required : requiredBundles.get(name)) {
+				if (inDegrees.containsKey(required)) {
+					++inDegree;
+				}
+			}
+			inDegrees.put(name, inDegree);
+		}
+
+		List<Set<String>> waves = new ArrayList<Set<String>>();
+		Set<String> wave = new TreeSet<String>();
+		for (Map.Entry<String, Integer> entry : inDegrees.entrySet()) {
+			if (entry.getValue() == 0) {
+				wave.add(entry.getKey());
+			}
+		}
+
+		while (!wave.isEmpty()) {
+			waves.add(wave);
+			Set<String> nextWave = new TreeSet<String>();
+			for (String name : wave) {
+				inDegrees.remove(name);
+				for (String dependent : dependentBundles.get(name)) {
+					Integer inDegree = inDegrees.get(dependent);
+					if (inDegree == null) {
+						continue;
+					}
+
+					inDegrees.put(dependent, inDegree - 1);
+					if (inDegree == 1) {
+						nextWave.add(dependent);
+					}
+				}
+			}
+			wave = nextWave;
+		}
+
+		if (!inDegrees.isEmpty()) {
+			waves.add(new TreeSet<String>(inDegrees.keySet()));
+		}
+
+		return waves;
+	}
+
+	private Set<String> getClosure(Collection<String> names, Map<String, Set<String>> edges, int maxDepth) {
+		Set<String> closure = new LinkedHashSet<String>();
+		LinkedList<String> queue = new LinkedList<String>();
+		Map<String, Integer> depths = new HashMap<String, Integer>();
+
+		for (String name : names) {
+			if (models.containsKey(name) && closure.add(name)) {
+				queue.add(name);
+				depths.put(name, 0);
+			}
+		}
+
+		while (!queue.isEmpty()) {
+			String name = queue.removeFirst();
+			int depth = depths.get(name);
+			if (depth >= maxDepth) {
+				continue;
+			}
+
+			for (String next : edges.get(name)) {
+				if (closure.add(next)) {
+					queue.add(next);
+					depths.put(next, depth + 1);
+				}
+			}
+		}
+
+		return closure;
+	}
+}
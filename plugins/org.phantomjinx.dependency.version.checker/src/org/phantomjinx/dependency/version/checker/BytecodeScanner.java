@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.dependency.version.checker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jdt.core.IClasspathEntry;
+import org.eclipse.jdt.core.IJavaProject;
+import org.phantomjinx.dependency.version.checker.ClassFileParser.ClassFileInfo;
+
+/**
+ * Scans the compiled classes in a java project's output folders for the
+ * packages they refer to.
+ *
+ * Class files are parsed in parallel on the executor given to
+ * {@link #scan(IJavaProject, ExecutorService, IProgressMonitor)} and
+ * the results are cached by file path along with a digest of the
+ * file's contents. Unchanged classes are never parsed twice and a
+ * rebuilt class replaces its old entry, so the cache holds no more
+ * than one entry for each class file in the workspace.
+ */
+public class BytecodeScanner {
+
+	private static final String CLASS_EXTENSION = ".class"; //$NON-NLS-1$
+
+	private static final String DIGEST_ALGORITHM = "SHA-1"; //$NON-NLS-1$
+
+	/**
+	 * The packages defined and referenced by all the classes of a project
+	 */
+	public static class ScanResult {
+
+		private final Set<String> definedPackages = new HashSet<String>();
+
+		private final Set<String> referencedPackages = new HashSet<String>();
+
+		private int classCount;
+
+		private boolean complete = true;
+
+		/**
+		 * @return the packages of the project's own classes
+		 */
+		public Set<String> getDefinedPackages() {
+			return definedPackages;
+		}
+
+		/**
+		 * @return the packages referenced by the project's classes excluding its own
+		 */
+		public Set<String> getReferencedPackages() {
+			return referencedPackages;
+		}
+
+		/**
+		 * @return the number of class files scanned
+		 */
+		public int getClassCount() {
+			return classCount;
+		}
+
+		/**
+		 * @return false if any class file could not be read so some referenced packages may be missing
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		/**
+		 * Add the classes of another scan to this one, eg. those of a fragment to its host's
+		 *
+		 * @param other
+		 */
+		public void addAll(ScanResult other) {
+			classCount += other.classCount;
+			complete &= other.complete;
+			definedPackages.addAll(other.definedPackages);
+			referencedPackages.addAll(other.referencedPackages);
+			referencedPackages.removeAll(definedPackages);
+		}
+	}
+
+	/**
+	 * The info parsed from a class file and the digest of the contents it was parsed from
+	 */
+	private static class CacheEntry {
+
+		private final String digest;
+
+		private final ClassFileInfo info;
+
+		private CacheEntry(String digest, ClassFileInfo info) {
+			this.digest = digest;
+			this.info = info;
+		}
+	}
+
+	private final Map<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+
+	private Logger logger = Logger
+			.getLogger(this.getClass().getCanonicalName());
+
+	/**
+	 * @param javaProject
+	 * @param executor
+	 * @param monitor
+	 * @return the packages defined and referenced by the project's classes
+	 * @throws CoreException
+	 */
+	public ScanResult scan(IJavaProject javaProject, ExecutorService executor, IProgressMonitor monitor) throws CoreException {
+		List<File> classFiles = findClassFiles(javaProject);
+
+		List<Future<ClassFileInfo>> futures = new ArrayList<Future<ClassFileInfo>>(classFiles.size());
+		for (final File classFile : classFiles) {
+			futures.add(executor.submit(new Callable<ClassFileInfo>() {
+				@Override
+				public ClassFileInfo call() throws Exception {
+					return parse(classFile);
+				}
+			}));
+		}
+
+		ScanResult result = new ScanResult();
+		try {
+			for (int i = 0; i < futures.size(); ++i) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+
+				ClassFileInfo info;
+				try {
+					info = futures.get(i).get();
+				}
+				catch (ExecutionException ex) {
+					logger.severe("Failed to scan class file " + classFiles.get(i).getAbsolutePath()); //$NON-NLS-1$
+					ex.printStackTrace();
+					info = null;
+				}
+
+				if (info == null) {
+					result.complete = false;
+					continue;
+				}
+
+				result.classCount++;
+				if (info.getDefinedPackage() != null) {
+					result.definedPackages.add(info.getDefinedPackage());
+				}
+				result.referencedPackages.addAll(info.getReferencedPackages());
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		}
+		finally {
+			for (Future<ClassFileInfo> future : futures) {
+				future.cancel(false);
+			}
+		}
+
+		result.referencedPackages.removeAll(result.definedPackages);
+		return result;
+	}
+
+	/**
+	 * @param javaProject
+	 * @return the class files in the project's default and source specific output folders
+	 * @throws CoreException
+	 */
+	private List<File> findClassFiles(IJavaProject javaProject) throws CoreException {
+		Set<IPath> outputPaths = new LinkedHashSet<IPath>();
+		outputPaths.add(javaProject.getOutputLocation());
+
+		for (IClasspathEntry entry : javaProject.getRawClasspath()) {
+			if (entry.getEntryKind() == IClasspathEntry.CPE_SOURCE && entry.getOutputLocation() != null) {
+				outputPaths.add(entry.getOutputLocation());
+			}
+		}
+
+		final List<File> classFiles = new ArrayList<File>();
+		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+
+		for (IPath outputPath : outputPaths) {
+			IResource output = root.findMember(outputPath);
+			if (!(output instanceof IContainer) || !output.exists()) {
+				continue;
+			}
+
+			output.accept(new IResourceProxyVisitor() {
+				@Override
+				public boolean visit(IResourceProxy proxy) {
+					if (proxy.getType() == IResource.FILE && proxy.getName().endsWith(CLASS_EXTENSION)) {
+						IPath location = proxy.requestResource().getLocation();
+						if (location != null) {
+							classFiles.add(location.toFile());
+						}
+					}
+					return true;
+				}
+			}, IResource.NONE);
+		}
+
+		return classFiles;
+	}
+
+	/**
+	 * @param classFile
+	 * @return the info for the class file or null if it could not be read
+	 */
+	private ClassFileInfo parse(File classFile) {
+		try {
+			byte[] bytes = readFile(classFile);
+			String digest = digest(bytes);
+
+			String path = classFile.getAbsolutePath();
+
+			CacheEntry entry = cache.get(path);
+			if (entry == null || !entry.digest.equals(digest)) {
+				entry = new CacheEntry(digest, ClassFileParser.parse(bytes));
+				cache.put(path, entry);
+			}
+
+			return entry.info;
+		}
+		catch (IOException ex) {
+			logger.warning("Cannot read class file " + classFile.getAbsolutePath() + ": " + ex.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+	}
+
+	private String digest(byte[] bytes) {
+		try {
+			byte[] hash = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(bytes);
+			StringBuilder builder = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+				builder.append(Character.forDigit(b & 0xF, 16));
+			}
+			return builder.toString();
+		}
+		catch (NoSuchAlgorithmException ex) {
+			// Every java platform is required to support SHA-1
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private byte[] readFile(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int offset = 0;
+			while (offset < bytes.length) {
+				int read = fis.read(bytes, offset, bytes.length - offset);
+				if (read < 0) {
+					throw new IOException("Unexpected end of file"); //$NON-NLS-1$
+				}
+				offset += read;
+			}
+			return bytes;
+		}
+		finally {
+			fis.close();
+		}
+	}
+}
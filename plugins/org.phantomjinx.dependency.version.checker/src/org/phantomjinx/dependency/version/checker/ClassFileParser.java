@@ -0,0 +1,535 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.dependency.version.checker;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Minimal class file reader that only walks the constant pool, the
+ * member descriptors, generic signatures and annotations to find out
+ * which packages a class refers to. Bytecode is skipped since every
+ * type it uses has to appear in the constant pool anyway, whereas
+ * types only named by an annotation or a generic signature appear
+ * solely as strings in those attributes.
+ */
+public class ClassFileParser {
+
+	/**
+	 * The packages defined and referenced by a single class file
+	 */
+	public static class ClassFileInfo {
+
+		private final String definedPackage;
+
+		private final Set<String> referencedPackages;
+
+		private ClassFileInfo(String definedPackage, Set<String> referencedPackages) {
+			this.definedPackage = definedPackage;
+			this.referencedPackages = Collections.unmodifiableSet(referencedPackages);
+		}
+
+		/**
+		 * @return the package of the class itself or null for the default package
+		 */
+		public String getDefinedPackage() {
+			return definedPackage;
+		}
+
+		/**
+		 * @return the packages of every type referenced by the class
+		 */
+		public Set<String> getReferencedPackages() {
+			return referencedPackages;
+		}
+	}
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_FLOAT = 4;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	private static final int CONSTANT_METHOD_HANDLE = 15;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+
+	private static final String CODE = "Code"; //$NON-NLS-1$
+	private static final String SIGNATURE = "Signature"; //$NON-NLS-1$
+	private static final String ANNOTATION_DEFAULT = "AnnotationDefault"; //$NON-NLS-1$
+	private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations"; //$NON-NLS-1$
+	private static final String RUNTIME_INVISIBLE_ANNOTATIONS = "RuntimeInvisibleAnnotations"; //$NON-NLS-1$
+	private static final String RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS = "RuntimeVisibleParameterAnnotations"; //$NON-NLS-1$
+	private static final String RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS = "RuntimeInvisibleParameterAnnotations"; //$NON-NLS-1$
+	private static final String RUNTIME_VISIBLE_TYPE_ANNOTATIONS = "RuntimeVisibleTypeAnnotations"; //$NON-NLS-1$
+	private static final String RUNTIME_INVISIBLE_TYPE_ANNOTATIONS = "RuntimeInvisibleTypeAnnotations"; //$NON-NLS-1$
+
+	private ClassFileParser() {
+	}
+
+	/**
+	 * @param bytes the contents of a class file
+	 * @return the packages defined and referenced by the class
+	 * @throws IOException if the bytes are not a valid class file
+	 */
+	public static ClassFileInfo parse(byte[] bytes) throws IOException {
+		try {
+			return readClassFile(bytes);
+		}
+		catch (RuntimeException ex) {
+			// Indexes pointing outside the constant pool and the like
+			throw new IOException("Malformed class file", ex); //$NON-NLS-1$
+		}
+	}
+
+	private static ClassFileInfo readClassFile(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a class file"); //$NON-NLS-1$
+		}
+
+		// minor and major version
+		in.readUnsignedShort();
+		in.readUnsignedShort();
+
+		int poolCount = in.readUnsignedShort();
+		String[] utf8s = new String[poolCount];
+		int[] classNameIndexes = new int[poolCount];
+		List<Integer> descriptorIndexes = new ArrayList<Integer>();
+		List<Integer> signatureIndexes = new ArrayList<Integer>();
+
+		for (int i = 1; i < poolCount; ++i) {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+				case CONSTANT_UTF8:
+					utf8s[i] = in.readUTF();
+					break;
+				case CONSTANT_CLASS:
+					classNameIndexes[i] = in.readUnsignedShort();
+					break;
+				case CONSTANT_NAME_AND_TYPE:
+					in.readUnsignedShort();
+					descriptorIndexes.add(in.readUnsignedShort());
+					break;
+				case CONSTANT_METHOD_TYPE:
+					descriptorIndexes.add(in.readUnsignedShort());
+					break;
+				case CONSTANT_STRING:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					in.readUnsignedShort();
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					in.readUnsignedByte();
+					in.readUnsignedShort();
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELDREF:
+				case CONSTANT_METHODREF:
+				case CONSTANT_INTERFACE_METHODREF:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					in.readInt();
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					in.readLong();
+					// 8 byte constants take up two entries
+					++i;
+					break;
+				default:
+					throw new IOException("Unknown constant pool tag " + tag); //$NON-NLS-1$
+			}
+		}
+
+		// access flags
+		in.readUnsignedShort();
+		int thisClassIndex = in.readUnsignedShort();
+		// super class is a class constant so already covered
+		in.readUnsignedShort();
+
+		int interfaceCount = in.readUnsignedShort();
+		for (int i = 0; i < interfaceCount; ++i) {
+			in.readUnsignedShort();
+		}
+
+		// fields then methods
+		for (int memberType = 0; memberType < 2; ++memberType) {
+			int memberCount = in.readUnsignedShort();
+			for (int i = 0; i < memberCount; ++i) {
+				in.readUnsignedShort();
+				in.readUnsignedShort();
+				descriptorIndexes.add(in.readUnsignedShort());
+				readAttributes(in, utf8s, descriptorIndexes, signatureIndexes);
+			}
+		}
+
+		readAttributes(in, utf8s, descriptorIndexes, signatureIndexes);
+
+		Set<String> packages = new HashSet<String>();
+
+		for (int classNameIndex : classNameIndexes) {
+			String name = utf8s[classNameIndex];
+			if (name == null) {
+				continue;
+			}
+
+			if (name.startsWith("[")) { //$NON-NLS-1$
+				addDescriptorPackages(name, packages);
+			} else {
+				addPackage(name, packages);
+			}
+		}
+
+		for (int descriptorIndex : descriptorIndexes) {
+			String descriptor = utf8s[descriptorIndex];
+			if (descriptor != null) {
+				addDescriptorPackages(descriptor, packages);
+			}
+		}
+
+		for (int signatureIndex : signatureIndexes) {
+			String signature = utf8s[signatureIndex];
+			if (signature != null) {
+				addSignaturePackages(signature, packages);
+			}
+		}
+
+		String thisClass = utf8s[classNameIndexes[thisClassIndex]];
+		String definedPackage = thisClass == null ? null : toPackage(thisClass);
+		if (definedPackage != null) {
+			packages.remove(definedPackage);
+		}
+
+		return new ClassFileInfo(definedPackage, packages);
+	}
+
+	/**
+	 * Read a table of attributes, noting the descriptors named by any
+	 * annotations and the generic signatures. Each attribute is read
+	 * from its own buffer so one that is not understood cannot throw
+	 * the rest of the class file out of step.
+	 */
+	private static void readAttributes(DataInputStream in, String[] utf8s,
+			List<Integer> descriptorIndexes, List<Integer> signatureIndexes) throws IOException {
+		int attributeCount = in.readUnsignedShort();
+		for (int i = 0; i < attributeCount; ++i) {
+			String name = utf8s[in.readUnsignedShort()];
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			DataInputStream attribute = new DataInputStream(new ByteArrayInputStream(bytes));
+
+			if (SIGNATURE.equals(name)) {
+				signatureIndexes.add(attribute.readUnsignedShort());
+			} else if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name) || RUNTIME_INVISIBLE_ANNOTATIONS.equals(name)) {
+				readAnnotations(attribute, descriptorIndexes);
+			} else if (RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS.equals(name) || RUNTIME_INVISIBLE_PARAMETER_ANNOTATIONS.equals(name)) {
+				int parameterCount = attribute.readUnsignedByte();
+				for (int j = 0; j < parameterCount; ++j) {
+					readAnnotations(attribute, descriptorIndexes);
+				}
+			} else if (RUNTIME_VISIBLE_TYPE_ANNOTATIONS.equals(name) || RUNTIME_INVISIBLE_TYPE_ANNOTATIONS.equals(name)) {
+				int annotationCount = attribute.readUnsignedShort();
+				for (int j = 0; j < annotationCount; ++j) {
+					skipTypeAnnotationTarget(attribute);
+					readAnnotation(attribute, descriptorIndexes);
+				}
+			} else if (ANNOTATION_DEFAULT.equals(name)) {
+				readElementValue(attribute, descriptorIndexes);
+			} else if (CODE.equals(name)) {
+				// max stack and max locals
+				attribute.readUnsignedShort();
+				attribute.readUnsignedShort();
+				skip(attribute, attribute.readInt());
+				// exception table entries are four shorts, their types are class constants
+				skip(attribute, attribute.readUnsignedShort() * 8);
+				// type annotations on local variables live in here
+				readAttributes(attribute, utf8s, descriptorIndexes, signatureIndexes);
+			}
+		}
+	}
+
+	private static void readAnnotations(DataInputStream in, List<Integer> descriptorIndexes) throws IOException {
+		int annotationCount = in.readUnsignedShort();
+		for (int i = 0; i < annotationCount; ++i) {
+			readAnnotation(in, descriptorIndexes);
+		}
+	}
+
+	private static void readAnnotation(DataInputStream in, List<Integer> descriptorIndexes) throws IOException {
+		descriptorIndexes.add(in.readUnsignedShort());
+		int pairCount = in.readUnsignedShort();
+		for (int i = 0; i < pairCount; ++i) {
+			// element name
+			in.readUnsignedShort();
+			readElementValue(in, descriptorIndexes);
+		}
+	}
+
+	private static void readElementValue(DataInputStream in, List<Integer> descriptorIndexes) throws IOException {
+		int tag = in.readUnsignedByte();
+		switch (tag) {
+			case 'e':
+				// enum type descriptor then constant name
+				descriptorIndexes.add(in.readUnsignedShort());
+				in.readUnsignedShort();
+				break;
+			case 'c':
+				// class literals are held as return descriptors
+				descriptorIndexes.add(in.readUnsignedShort());
+				break;
+			case '@':
+				readAnnotation(in, descriptorIndexes);
+				break;
+			case '[':
+				int valueCount = in.readUnsignedShort();
+				for (int i = 0; i < valueCount; ++i) {
+					readElementValue(in, descriptorIndexes);
+				}
+				break;
+			case 'B':
+			case 'C':
+			case 'D':
+			case 'F':
+			case 'I':
+			case 'J':
+			case 'S':
+			case 'Z':
+			case 's':
+				in.readUnsignedShort();
+				break;
+			default:
+				throw new IOException("Unknown annotation element tag " + (char) tag); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Skip the target_info and type_path preceding a type annotation
+	 */
+	private static void skipTypeAnnotationTarget(DataInputStream in) throws IOException {
+		int targetType = in.readUnsignedByte();
+		switch (targetType) {
+			case 0x00:
+			case 0x01:
+			case 0x16:
+				skip(in, 1);
+				break;
+			case 0x10:
+			case 0x11:
+			case 0x12:
+			case 0x17:
+			case 0x42:
+			case 0x43:
+			case 0x44:
+			case 0x45:
+			case 0x46:
+				skip(in, 2);
+				break;
+			case 0x13:
+			case 0x14:
+			case 0x15:
+				break;
+			case 0x40:
+			case 0x41:
+				skip(in, in.readUnsignedShort() * 6);
+				break;
+			case 0x47:
+			case 0x48:
+			case 0x49:
+			case 0x4A:
+			case 0x4B:
+				skip(in, 3);
+				break;
+			default:
+				throw new IOException("Unknown type annotation target " + targetType); //$NON-NLS-1$
+		}
+
+		// type path entries are two bytes each
+		skip(in, in.readUnsignedByte() * 2);
+	}
+
+	private static void skip(DataInputStream in, int length) throws IOException {
+		if (in.skipBytes(length) != length) {
+			throw new EOFException();
+		}
+	}
+
+	/**
+	 * Add the package of every object type in a field or method descriptor
+	 */
+	private static void addDescriptorPackages(String descriptor, Set<String> packages) {
+		int index = 0;
+		while ((index = descriptor.indexOf('L', index)) >= 0) {
+			int end = descriptor.indexOf(';', index);
+			if (end < 0) {
+				return;
+			}
+
+			addPackage(descriptor.substring(index + 1, end), packages);
+			index = end + 1;
+		}
+	}
+
+	/**
+	 * Add the package of every class type in a generic signature of a
+	 * class, field or method. Unlike a descriptor, a class type may carry
+	 * type arguments and inner class suffixes so it is not simply
+	 * terminated by the next semi-colon.
+	 */
+	private static void addSignaturePackages(String signature, Set<String> packages) throws IOException {
+		int index = 0;
+		if (charAt(signature, index) == '<') {
+			index = readTypeParameters(signature, index, packages);
+		}
+
+		while (index < signature.length()) {
+			char c = signature.charAt(index);
+			if (c == '(' || c == ')' || c == '^') {
+				++index;
+			} else {
+				index = readTypeSignature(signature, index, packages);
+			}
+		}
+	}
+
+	/**
+	 * @return the index following the closing angle bracket
+	 */
+	private static int readTypeParameters(String signature, int index, Set<String> packages) throws IOException {
+		++index;
+		while (charAt(signature, index) != '>') {
+			// skip the parameter name, the class bound may be empty
+			index = signature.indexOf(':', index);
+			if (index < 0) {
+				throw new IOException("Malformed signature " + signature); //$NON-NLS-1$
+			}
+
+			while (charAt(signature, index) == ':') {
+				++index;
+				if (charAt(signature, index) != ':') {
+					index = readTypeSignature(signature, index, packages);
+				}
+			}
+		}
+
+		return index + 1;
+	}
+
+	/**
+	 * @return the index following the type signature
+	 */
+	private static int readTypeSignature(String signature, int index, Set<String> packages) throws IOException {
+		switch (charAt(signature, index)) {
+			case 'L':
+				return readClassTypeSignature(signature, index, packages);
+			case 'T':
+				int end = signature.indexOf(';', index);
+				if (end < 0) {
+					throw new IOException("Malformed signature " + signature); //$NON-NLS-1$
+				}
+				return end + 1;
+			case '[':
+				return readTypeSignature(signature, index + 1, packages);
+			default:
+				// primitive or void
+				return index + 1;
+		}
+	}
+
+	private static int readClassTypeSignature(String signature, int index, Set<String> packages) throws IOException {
+		int nameStart = ++index;
+		boolean outerClass = true;
+
+		while (true) {
+			char c = charAt(signature, index);
+			while (c != ';' && c != '<' && c != '.') {
+				c = charAt(signature, ++index);
+			}
+
+			// inner class suffixes are simple names so only the outer class has a package
+			if (outerClass) {
+				addPackage(signature.substring(nameStart, index), packages);
+				outerClass = false;
+			}
+
+			if (c == '<') {
+				++index;
+				while ((c = charAt(signature, index)) != '>') {
+					if (c == '*') {
+						++index;
+					} else {
+						if (c == '+' || c == '-') {
+							++index;
+						}
+						index = readTypeSignature(signature, index, packages);
+					}
+				}
+				c = charAt(signature, ++index);
+			}
+
+			++index;
+			if (c == ';') {
+				return index;
+			}
+		}
+	}
+
+	private static char charAt(String signature, int index) throws IOException {
+		if (index >= signature.length()) {
+			throw new IOException("Malformed signature " + signature); //$NON-NLS-1$
+		}
+
+		return signature.charAt(index);
+	}
+
+	private static void addPackage(String internalName, Set<String> packages) {
+		String packageName = toPackage(internalName);
+		if (packageName != null) {
+			packages.add(packageName);
+		}
+	}
+
+	private static String toPackage(String internalName) {
+		int lastSlash = internalName.lastIndexOf('/');
+		if (lastSlash < 0) {
+			return null;
+		}
+
+		return internalName.substring(0, lastSlash).replace('/', '.');
+	}
+}
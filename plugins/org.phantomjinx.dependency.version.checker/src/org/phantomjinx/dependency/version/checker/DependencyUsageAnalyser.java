@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.dependency.version.checker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.BundleSpecification;
+import org.eclipse.osgi.service.resolver.ExportPackageDescription;
+import org.eclipse.osgi.service.resolver.HostSpecification;
+import org.eclipse.osgi.service.resolver.ImportPackageSpecification;
+import org.eclipse.pde.core.plugin.IFragment;
+import org.eclipse.pde.core.plugin.IPluginBase;
+import org.eclipse.pde.core.plugin.IPluginExtension;
+import org.eclipse.pde.core.plugin.IPluginExtensionPoint;
+import org.eclipse.pde.core.plugin.IPluginModelBase;
+import org.eclipse.pde.internal.core.PDEExtensionRegistry;
+import org.eclipse.pde.internal.core.PluginModelManager;
+import org.phantomjinx.dependency.version.checker.BytecodeScanner.ScanResult;
+
+/**
+ * Compares the packages referenced by a bundle's classes against the
+ * packages provided by its Require-Bundle entries.
+ *
+ * A required bundle provides the packages it exports, those exported by
+ * its fragments and those of any bundle it re-exports. Required bundles
+ * that are re-exported or whose extension points are extended count as
+ * used whether or not any class refers to them.
+ *
+ * A fragment shares its host's class loader so sees every package its
+ * host does. A host's scan is expected to include the classes of its
+ * workspace fragments since they may be the only users of a dependency.
+ */
+public class DependencyUsageAnalyser {
+
+	private static final String JAVA_PACKAGE_PREFIX = "java."; //$NON-NLS-1$
+
+	private static final String SYSTEM_BUNDLE = "org.eclipse.osgi"; //$NON-NLS-1$
+
+	/**
+	 * The outcome of analysing a single bundle
+	 */
+	public static class DependencyUsage {
+
+		private final List<String> unusedBundles = new ArrayList<String>();
+
+		private final Map<String, Set<String>> missingPackages = new TreeMap<String, Set<String>>();
+
+		/**
+		 * @return the required bundles that none of the bundle's classes use
+		 */
+		public List<String> getUnusedBundles() {
+			return unusedBundles;
+		}
+
+		/**
+		 * @return the referenced packages that are neither required nor imported
+		 *              mapped to the bundles that export them
+		 */
+		public Map<String, Set<String>> getMissingPackages() {
+			return missingPackages;
+		}
+	}
+
+	private final PluginModelManager modelManager;
+
+	private final PDEExtensionRegistry extensionRegistry;
+
+	private final Map<String, Set<String>> exportersByPackage = new HashMap<String, Set<String>>();
+
+	private final Map<String, Set<String>> packagesByExporter = new HashMap<String, Set<String>>();
+
+	private final Map<String, Set<String>> providedPackages = new HashMap<String, Set<String>>();
+
+	/**
+	 * @param modelManager
+	 * @param extensionRegistry
+	 */
+	public DependencyUsageAnalyser(PluginModelManager modelManager, PDEExtensionRegistry extensionRegistry) {
+		this.modelManager = modelManager;
+		this.extensionRegistry = extensionRegistry;
+
+		for (IPluginModelBase model : modelManager.getAllModels(true)) {
+			BundleDescription description = model.getBundleDescription();
+			if (description == null) {
+				continue;
+			}
+
+			// A fragment's packages are seen through its host
+			String exporter = description.getSymbolicName();
+			HostSpecification host = description.getHost();
+			if (host != null) {
+				exporter = host.getName();
+			}
+
+			for (ExportPackageDescription exportPackage : description.getExportPackages()) {
+				add(exportersByPackage, exportPackage.getName(), exporter);
+				add(packagesByExporter, exporter, exportPackage.getName());
+			}
+		}
+	}
+
+	/**
+	 * @param model
+	 * @param scan the scan of the bundle's classes, and those of its fragments if a host
+	 * @return the unused and missing dependencies of the given bundle
+	 */
+	public DependencyUsage analyse(IPluginModelBase model, ScanResult scan) {
+		BundleDescription description = model.getBundleDescription();
+		String symbolicName = description.getSymbolicName();
+		DependencyUsage usage = new DependencyUsage();
+
+		// A fragment's packages are attributed to its host
+		HostSpecification host = description.getHost();
+		String ownerName = host == null ? symbolicName : host.getName();
+
+		Set<String> referenced = new HashSet<String>();
+		for (String referencedPackage : scan.getReferencedPackages()) {
+			if (!referencedPackage.startsWith(JAVA_PACKAGE_PREFIX)) {
+				referenced.add(referencedPackage);
+			}
+		}
+
+		Set<String> ownPackages = packagesByExporter.get(ownerName);
+		if (ownPackages != null) {
+			referenced.removeAll(ownPackages);
+		}
+
+		for (ImportPackageSpecification importPackage : description.getImportPackages()) {
+			referenced.remove(importPackage.getName());
+		}
+
+		List<BundleDescription> relatedBundles = getRelatedBundles(description);
+		Set<String> extended = getExtendedBundles(model);
+		if (host == null) {
+			for (BundleDescription fragment : relatedBundles) {
+				IPluginModelBase fragmentModel = modelManager.findModel(fragment.getSymbolicName());
+				if (fragmentModel != null) {
+					extended.addAll(getExtendedBundles(fragmentModel));
+				}
+			}
+		}
+
+		Set<String> satisfied = new HashSet<String>();
+
+		for (BundleSpecification bundleSpec : description.getRequiredBundles()) {
+			boolean used = false;
+			for (String providedPackage : getProvidedPackages(bundleSpec.getName())) {
+				if (referenced.contains(providedPackage)) {
+					satisfied.add(providedPackage);
+					used = true;
+				}
+			}
+
+			if (!used && !bundleSpec.isExported() && !extended.contains(bundleSpec.getName())) {
+				usage.unusedBundles.add(bundleSpec.getName());
+			}
+		}
+
+		referenced.removeAll(satisfied);
+
+		// Packages a fragment's host can see, or that a host's fragments get for themselves, are not missing
+		for (BundleDescription relatedBundle : relatedBundles) {
+			referenced.removeAll(getVisiblePackages(relatedBundle));
+		}
+
+		for (String missingPackage : referenced) {
+			Set<String> exporters = exportersByPackage.get(missingPackage);
+			if (exporters == null || exporters.contains(SYSTEM_BUNDLE)) {
+				// Either on the bundle's own classpath or provided by the framework
+				continue;
+			}
+
+			Set<String> candidates = new TreeSet<String>(exporters);
+			candidates.remove(ownerName);
+			if (!candidates.isEmpty()) {
+				usage.missingPackages.put(missingPackage, candidates);
+			}
+		}
+
+		return usage;
+	}
+
+	/**
+	 * @param description
+	 * @return the host of a fragment or the fragments of a host
+	 */
+	private List<BundleDescription> getRelatedBundles(BundleDescription description) {
+		List<BundleDescription> related = new ArrayList<BundleDescription>();
+		HostSpecification host = description.getHost();
+		if (host == null) {
+			related.addAll(Arrays.asList(description.getFragments()));
+			return related;
+		}
+
+		IPluginModelBase hostModel = modelManager.findModel(host.getName());
+		if (hostModel != null && hostModel.getBundleDescription() != null) {
+			related.add(hostModel.getBundleDescription());
+		}
+
+		return related;
+	}
+
+	/**
+	 * @param description
+	 * @return the packages the given bundle imports or gets from its required bundles
+	 */
+	private Set<String> getVisiblePackages(BundleDescription description) {
+		Set<String> packages = new HashSet<String>();
+		for (ImportPackageSpecification importPackage : description.getImportPackages()) {
+			packages.add(importPackage.getName());
+		}
+
+		for (BundleSpecification bundleSpec : description.getRequiredBundles()) {
+			packages.addAll(getProvidedPackages(bundleSpec.getName()));
+		}
+
+		return packages;
+	}
+
+	/**
+	 * @param bundleName
+	 * @return the packages visible to a bundle requiring the given bundle
+	 */
+	private Set<String> getProvidedPackages(String bundleName) {
+		Set<String> packages = providedPackages.get(bundleName);
+		if (packages != null) {
+			return packages;
+		}
+
+		packages = new HashSet<String>();
+		// Guards against cycles of re-exporting bundles
+		providedPackages.put(bundleName, packages);
+
+		Set<String> exported = packagesByExporter.get(bundleName);
+		if (exported != null) {
+			packages.addAll(exported);
+		}
+
+		IPluginModelBase model = modelManager.findModel(bundleName);
+		if (model != null && model.getBundleDescription() != null) {
+			for (BundleSpecification bundleSpec : model.getBundleDescription().getRequiredBundles()) {
+				if (bundleSpec.isExported()) {
+					packages.addAll(getProvidedPackages(bundleSpec.getName()));
+				}
+			}
+		}
+
+		return packages;
+	}
+
+	/**
+	 * @param model
+	 * @return the names of the bundles declaring the extension points the model extends
+	 */
+	private Set<String> getExtendedBundles(IPluginModelBase model) {
+		Set<String> extended = new HashSet<String>();
+		for (IPluginExtension extension : model.getPluginBase().getExtensions()) {
+			// Point ids need not start with the id of the declaring bundle
+			IPluginExtensionPoint point = extension.getPoint() == null ? null : extensionRegistry.findExtensionPoint(extension.getPoint());
+			if (point == null) {
+				continue;
+			}
+
+			// A point declared by a fragment is required through its host
+			IPluginBase declarer = point.getPluginBase();
+			extended.add(declarer instanceof IFragment ? ((IFragment) declarer).getPluginId() : declarer.getId());
+		}
+
+		return extended;
+	}
+
+	private void add(Map<String, Set<String>> map, String key, String value) {
+		Set<String> values = map.get(key);
+		if (values == null) {
+			values = new HashSet<String>();
+			map.put(key, values);
+		}
+
+		values.add(value);
+	}
+}
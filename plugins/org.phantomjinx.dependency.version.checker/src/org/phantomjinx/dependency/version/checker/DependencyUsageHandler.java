@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.dependency.version.checker;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.pde.core.plugin.IPluginModelBase;
+import org.eclipse.pde.internal.core.PDECore;
+import org.eclipse.pde.internal.core.PluginModelManager;
+import org.phantomjinx.common.jobs.AbstractCoordinatedHandler;
+import org.phantomjinx.common.jobs.CoordinatedJob;
+import org.phantomjinx.common.jobs.JobCoordinator;
+import org.phantomjinx.dependency.version.checker.BytecodeScanner.ScanResult;
+import org.phantomjinx.dependency.version.checker.DependencyUsageAnalyser.DependencyUsage;
+
+/**
+ * Reports the Require-Bundle entries of the selected plugins that none
+ * of their classes use, and the packages their classes use without any
+ * dependency providing them. The unused entries are also removed from
+ * the manifests if the command's remove parameter is true.
+ */
+public class DependencyUsageHandler extends AbstractCoordinatedHandler {
+
+	/**
+	 * Family of the usage checker jobs
+	 */
+	public static final String DEPENDENCY_USAGE_FAMILY = "org.phantomjinx.dependency.usage.checker"; //$NON-NLS-1$
+
+	/**
+	 * Command parameter determining whether unused entries are removed
+	 */
+	public static final String REMOVE_UNUSED_PARAMETER = "org.phantomjinx.dependency.usage.checker.removeUnused"; //$NON-NLS-1$
+
+	private static final String PLUGIN_ID = "org.phantomjinx.dependency.version.checker"; //$NON-NLS-1$
+
+	private static final String META_INF = "META-INF"; //$NON-NLS-1$
+
+	private static final String MANIFEST_FILENAME = "MANIFEST.MF"; //$NON-NLS-1$
+
+	private static final String REQUIRE_BUNDLE = "Require-Bundle"; //$NON-NLS-1$
+
+	private Logger logger = Logger
+			.getLogger(this.getClass().getCanonicalName());
+
+	/**
+	 * Kept for the lifetime of the handler so unchanged classes are not re-parsed
+	 */
+	private final BytecodeScanner scanner = new BytecodeScanner();
+
+	/**
+	 * Job checking the usage of dependencies of the given projects.
+	 * Duplicate requests made while it is waiting add their projects to
+	 * it, only removing unused entries from those projects whose request
+	 * asked for it.
+	 *
+	 * The job has no rule of its own. Scanning only reads the output
+	 * folders so it holds off the other tools alone, leaving builds and
+	 * editors free, and each manifest's rule is only taken to write it.
+	 */
+	private class DependencyUsageJob extends CoordinatedJob {
+
+		private final Set<String> projectNames;
+
+		private final Set<String> removeNames = new LinkedHashSet<String>();
+
+		/**
+		 * @param projectNames the projects to check
+		 * @param removeUnused whether to remove unused entries from those projects
+		 */
+		public DependencyUsageJob(Set<String> projectNames, boolean removeUnused) {
+			super("Dependency Usage Checking", DEPENDENCY_USAGE_FAMILY, null); //$NON-NLS-1$
+			this.projectNames = projectNames;
+			if (removeUnused) {
+				removeNames.addAll(projectNames);
+			}
+		}
+
+		private synchronized Set<String> getProjectNames() {
+			return projectNames;
+		}
+
+		private synchronized Set<String> getRemoveNames() {
+			return removeNames;
+		}
+
+		@Override
+		protected synchronized void coalesce(CoordinatedJob duplicate) {
+			DependencyUsageJob duplicateJob = (DependencyUsageJob) duplicate;
+			projectNames.addAll(duplicateJob.getProjectNames());
+			removeNames.addAll(duplicateJob.getRemoveNames());
+		}
+
+		@Override
+		public IStatus run(IProgressMonitor monitor) {
+			try {
+				Map<IProject, List<String>> removals = new LinkedHashMap<IProject, List<String>>();
+				IJobManager jobManager = Job.getJobManager();
+				try {
+					jobManager.beginRule(JobCoordinator.TOOLS_RULE, monitor);
+					checkProjects(getProjectNames(), getRemoveNames(), removals, monitor);
+				}
+				finally {
+					jobManager.endRule(JobCoordinator.TOOLS_RULE);
+				}
+
+				for (Entry<IProject, List<String>> removal : removals.entrySet()) {
+					removeRequiredBundles(removal.getKey(), removal.getValue(), monitor);
+				}
+			}
+			catch (CoreException ex) {
+				// Reported by the job manager along with the cause
+				logger.severe(ex.getMessage());
+				return ex.getStatus();
+			}
+			catch (OperationCanceledException ex) {
+				return Status.CANCEL_STATUS;
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	public DependencyUsageHandler() {
+		super(DEPENDENCY_USAGE_FAMILY);
+	}
+
+	@Override
+	protected CoordinatedJob createJob(ExecutionEvent event) {
+		boolean removeUnused = Boolean.parseBoolean(event.getParameter(REMOVE_UNUSED_PARAMETER));
+
+		Set<String> projectNames = ProjectSelection.getProjectNames(event);
+		if (projectNames.isEmpty()) {
+			logger.info("No plugin projects selected"); //$NON-NLS-1$
+			return null;
+		}
+
+		return new DependencyUsageJob(projectNames, removeUnused);
+	}
+
+	/**
+	 * Scan the compiled classes of the given plugins and compare the
+	 * packages they use against the plugin's required bundles.
+	 *
+	 * @param projectNames the projects to check
+	 * @param removeNames the projects to remove unused entries from
+	 * @param removals filled with the unused entries to remove from each project
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	private void checkProjects(Set<String> projectNames, Set<String> removeNames, Map<IProject, List<String>> removals, IProgressMonitor monitor) throws CoreException {
+		Map<String, IProject> projectMap = new HashMap<String, IProject>();
+		for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+			projectMap.put(project.getName(), project);
+		}
+
+		PluginModelManager modelManager = PDECore.getDefault().getModelManager();
+		IPluginModelBase[] pluginModels = modelManager.getAllModels(true);
+		DependencyUsageAnalyser analyser = new DependencyUsageAnalyser(modelManager, PDECore.getDefault().getExtensionsRegistry());
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		monitor.beginTask("Checking dependency usage", projectNames.size()); //$NON-NLS-1$
+
+		try {
+			for (IPluginModelBase pluginModel : pluginModels) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+
+				BundleDescription bundleDescription = pluginModel.getBundleDescription();
+				if (bundleDescription == null || !projectNames.contains(bundleDescription.getSymbolicName())) {
+					continue;
+				}
+
+				IProject project = projectMap.get(bundleDescription.getSymbolicName());
+				if (project == null || !project.isOpen() || !project.hasNature(JavaCore.NATURE_ID)) {
+					monitor.worked(1);
+					continue;
+				}
+
+				monitor.subTask(project.getName());
+				IJavaProject javaProject = JavaCore.create(project);
+				ScanResult scan = scanner.scan(javaProject, executor, monitor);
+
+				// A host's dependencies may only be used by the classes of its fragments
+				for (BundleDescription fragment : bundleDescription.getFragments()) {
+					IProject fragmentProject = projectMap.get(fragment.getSymbolicName());
+					if (fragmentProject != null && fragmentProject.isOpen() && fragmentProject.hasNature(JavaCore.NATURE_ID)) {
+						scan.addAll(scanner.scan(JavaCore.create(fragmentProject), executor, monitor));
+					}
+				}
+
+				if (scan.getClassCount() == 0) {
+					logger.warning("No classes found for " + project.getName() + ", has it been built?"); //$NON-NLS-1$ //$NON-NLS-2$
+					monitor.worked(1);
+					continue;
+				}
+
+				DependencyUsage usage = analyser.analyse(pluginModel, scan);
+				report(project, usage);
+
+				if (removeNames.contains(project.getName()) && !usage.getUnusedBundles().isEmpty()) {
+					if (scan.isComplete()) {
+						removals.put(project, usage.getUnusedBundles());
+					} else {
+						// An unread class may be the only user of an entry
+						logger.warning("Not all classes of " + project.getName() //$NON-NLS-1$
+								+ " could be read so no dependencies have been removed"); //$NON-NLS-1$
+					}
+				}
+
+				monitor.worked(1);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+			monitor.done();
+		}
+	}
+
+	private void report(IProject project, DependencyUsage usage) {
+		for (String unusedBundle : usage.getUnusedBundles()) {
+			logger.warning(project.getName() + ": unused Require-Bundle " + unusedBundle); //$NON-NLS-1$
+		}
+
+		for (Entry<String, Set<String>> entry : usage.getMissingPackages().entrySet()) {
+			logger.warning(project.getName() + ": package " + entry.getKey() //$NON-NLS-1$
+					+ " is used but not required, it is exported by " + entry.getValue()); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * @param project
+	 * @param unusedBundles
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	private void removeRequiredBundles(final IProject project, final List<String> unusedBundles, IProgressMonitor monitor) throws CoreException {
+		final IFile manifestIFile = project.getFolder(META_INF).getFile(MANIFEST_FILENAME);
+		if (!manifestIFile.exists()) {
+			logger.severe("Cannot get the manifest for plugin " + project.getName()); //$NON-NLS-1$
+			return;
+		}
+
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		ISchedulingRule rule = MultiRule.combine(JobCoordinator.TOOLS_RULE, workspace.getRuleFactory().modifyRule(manifestIFile));
+
+		workspace.run(new IWorkspaceRunnable() {
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				// Read again now the rule is held in case it changed since the scan
+				File manifestFile = manifestIFile.getRawLocation().makeAbsolute().toFile();
+				try {
+					ManifestEditor editor = ManifestEditor.read(manifestFile);
+					List<String> clauses = new ArrayList<String>();
+					for (String clause : editor.getClauses(REQUIRE_BUNDLE)) {
+						if (!unusedBundles.contains(ManifestEditor.getClauseName(clause))) {
+							clauses.add(clause);
+						}
+					}
+
+					editor.setClauses(REQUIRE_BUNDLE, clauses);
+					manifestIFile.setContents(new ByteArrayInputStream(editor.getBytes()), IResource.FORCE | IResource.KEEP_HISTORY, monitor);
+					logger.info("Removed unused dependencies " + unusedBundles + " from " + project.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				catch (IOException ex) {
+					throw new CoreException(new Status(IStatus.ERROR, PLUGIN_ID,
+							"Failed to update manifest file " + manifestFile.getAbsolutePath(), ex)); //$NON-NLS-1$
+				}
+			}
+		}, rule, IWorkspace.AVOID_UPDATE, monitor);
+	}
+}
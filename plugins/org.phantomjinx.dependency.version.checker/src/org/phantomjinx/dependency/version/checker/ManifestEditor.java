@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.dependency.version.checker;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Line based editor of a bundle manifest that rewrites individual
+ * headers while leaving the rest of the file as it was written.
+ */
+public class ManifestEditor {
+
+	private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+	private static final String NEWLINE = "\n"; //$NON-NLS-1$
+
+	private static final String SPACE = " "; //$NON-NLS-1$
+
+	private static final String COLON = ":"; //$NON-NLS-1$
+
+	private static final char COMMA = ',';
+
+	private static final char SEMI_COLON = ';';
+
+	private static final char SPEECH_MARK = '"';
+
+	private static final char EQUALS = '=';
+
+	private final List<String> lines;
+
+	private ManifestEditor(List<String> lines) {
+		this.lines = lines;
+	}
+
+	/**
+	 * @param manifestFile
+	 * @return an editor for the given manifest
+	 * @throws IOException
+	 */
+	public static ManifestEditor read(File manifestFile) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), ENCODING));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		return new ManifestEditor(lines);
+	}
+
+	/**
+	 * @param clause a single clause of a header, eg. a Require-Bundle entry
+	 * @return the name of the clause without any of its attributes or directives
+	 */
+	public static String getClauseName(String clause) {
+		int index = clause.indexOf(SEMI_COLON);
+		return (index < 0 ? clause : clause.substring(0, index)).trim();
+	}
+
+	/**
+	 * Set an attribute of a header clause, replacing any existing value
+	 * of the attribute and leaving the clause's other parameters intact.
+	 *
+	 * @param clause a single clause of a header, eg. a Require-Bundle entry
+	 * @param attribute the attribute name, eg. bundle-version
+	 * @param value the unquoted attribute value
+	 * @return the clause with the attribute set
+	 */
+	public static String setClauseAttribute(String clause, String attribute, String value) {
+		List<String> parameters = new ArrayList<String>();
+		boolean inQuotes = false;
+		int parameterStart = 0;
+		for (int i = 0; i < clause.length(); ++i) {
+			char c = clause.charAt(i);
+			if (c == SPEECH_MARK) {
+				inQuotes = !inQuotes;
+			} else if (c == SEMI_COLON && !inQuotes) {
+				parameters.add(clause.substring(parameterStart, i).trim());
+				parameterStart = i + 1;
+			}
+		}
+		parameters.add(clause.substring(parameterStart).trim());
+
+		String newParameter = attribute + EQUALS + SPEECH_MARK + value + SPEECH_MARK;
+		boolean replaced = false;
+		for (int i = 1; i < parameters.size(); ++i) {
+			String parameter = parameters.get(i);
+			int equals = parameter.indexOf(EQUALS);
+			// Directives use := so their names end with a colon and never match
+			if (equals > 0 && parameter.substring(0, equals).trim().equals(attribute)) {
+				parameters.set(i, newParameter);
+				replaced = true;
+			}
+		}
+
+		if (!replaced) {
+			parameters.add(1, newParameter);
+		}
+
+		StringBuilder newClause = new StringBuilder();
+		for (String parameter : parameters) {
+			if (newClause.length() > 0) {
+				newClause.append(SEMI_COLON);
+			}
+			newClause.append(parameter);
+		}
+
+		return newClause.toString();
+	}
+
+	/**
+	 * @param header
+	 * @return the value of the header with its continuation lines joined or null if absent
+	 */
+	public String getHeaderValue(String header) {
+		int start = findHeader(header);
+		if (start < 0) {
+			return null;
+		}
+
+		String firstLine = lines.get(start).substring(header.length() + 1);
+		if (firstLine.startsWith(SPACE)) {
+			firstLine = firstLine.substring(1);
+		}
+
+		StringBuilder value = new StringBuilder(firstLine);
+		int end = findHeaderEnd(start);
+		for (int i = start + 1; i < end; ++i) {
+			// A continuation line's leading space is not part of the value
+			value.append(lines.get(i).substring(1));
+		}
+
+		return value.toString();
+	}
+
+	/**
+	 * @param header
+	 * @return the comma separated clauses of the header, empty if the header is absent
+	 */
+	public List<String> getClauses(String header) {
+		List<String> clauses = new ArrayList<String>();
+		String value = getHeaderValue(header);
+		if (value == null) {
+			return clauses;
+		}
+
+		boolean inQuotes = false;
+		int clauseStart = 0;
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			if (c == SPEECH_MARK) {
+				inQuotes = !inQuotes;
+			} else if (c == COMMA && !inQuotes) {
+				addClause(value.substring(clauseStart, i), clauses);
+				clauseStart = i + 1;
+			}
+		}
+		addClause(value.substring(clauseStart), clauses);
+
+		return clauses;
+	}
+
+	/**
+	 * Replace the clauses of the header, writing one clause per line.
+	 * The header is removed altogether if there are no clauses.
+	 *
+	 * @param header
+	 * @param clauses
+	 */
+	public void setClauses(String header, List<String> clauses) {
+		List<String> headerLines = new ArrayList<String>();
+		for (int i = 0; i < clauses.size(); ++i) {
+			String line = (i == 0 ? header + COLON + SPACE : SPACE) + clauses.get(i);
+			if (i < clauses.size() - 1) {
+				line = line + COMMA;
+			}
+			headerLines.add(line);
+		}
+
+		replaceHeader(header, headerLines);
+	}
+
+	/**
+	 * Replace the value of the header, adding the header if absent
+	 *
+	 * @param header
+	 * @param value
+	 */
+	public void setHeaderValue(String header, String value) {
+		List<String> headerLines = new ArrayList<String>();
+		headerLines.add(header + COLON + SPACE + value);
+		replaceHeader(header, headerLines);
+	}
+
+	/**
+	 * @return the manifest as it would be written
+	 */
+	public String getContents() {
+		StringBuilder contents = new StringBuilder();
+		for (String line : lines) {
+			contents.append(line);
+			contents.append(NEWLINE);
+		}
+
+		return contents.toString();
+	}
+
+	/**
+	 * @return the manifest as it would be written, encoded as bytes
+	 * @throws IOException
+	 */
+	public byte[] getBytes() throws IOException {
+		return getContents().getBytes(ENCODING);
+	}
+
+	private void addClause(String clause, List<String> clauses) {
+		clause = clause.trim();
+		if (clause.length() > 0) {
+			clauses.add(clause);
+		}
+	}
+
+	private void replaceHeader(String header, List<String> headerLines) {
+		int start = findHeader(header);
+		if (start < 0) {
+			if (headerLines.isEmpty()) {
+				return;
+			}
+
+			// New headers go before any trailing blank lines
+			start = lines.size();
+			while (start > 0 && lines.get(start - 1).trim().length() == 0) {
+				--start;
+			}
+			lines.addAll(start, headerLines);
+			return;
+		}
+
+		int end = findHeaderEnd(start);
+		for (int i = start; i < end; ++i) {
+			lines.remove(start);
+		}
+		lines.addAll(start, headerLines);
+	}
+
+	private int findHeader(String header) {
+		String prefix = header + COLON;
+		for (int i = 0; i < lines.size(); ++i) {
+			if (lines.get(i).startsWith(prefix)) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private int findHeaderEnd(int start) {
+		int end = start + 1;
+		while (end < lines.size() && lines.get(end).startsWith(SPACE)) {
+			++end;
+		}
+
+		return end;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.dependency.version.checker;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.pde.internal.core.PDECore;
+import org.eclipse.ui.IWorkingSet;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Helpers for working out which projects a command applies to
+ */
+public class ProjectSelection {
+
+	private ProjectSelection() {
+	}
+
+	/**
+	 * Find the projects in the current selection, be they selected
+	 * directly or as members of a selected working set.
+	 *
+	 * @param event
+	 * @return the names of the selected projects
+	 */
+	public static Set<String> getProjectNames(ExecutionEvent event) {
+		Set<String> projectNames = new LinkedHashSet<String>();
+		ISelection selection = HandlerUtil.getCurrentSelection(event);
+
+		if (selection instanceof IStructuredSelection) {
+			for (Object element : ((IStructuredSelection) selection).toList()) {
+				if (element instanceof IWorkingSet) {
+					for (IAdaptable wsElement : ((IWorkingSet) element).getElements()) {
+						addProjectName(wsElement, projectNames);
+					}
+				} else if (element instanceof IAdaptable) {
+					addProjectName((IAdaptable) element, projectNames);
+				}
+			}
+		}
+
+		return projectNames;
+	}
+
+	/**
+	 * @return the Require-Bundle graph of the plugin projects in the workspace
+	 */
+	public static BundleDependencyGraph getWorkspaceGraph() {
+		List<String> workspaceProjects = new ArrayList<String>();
+		for (IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
+			workspaceProjects.add(project.getName());
+		}
+
+		return new BundleDependencyGraph(PDECore.getDefault().getModelManager(), workspaceProjects);
+	}
+
+	private static void addProjectName(IAdaptable element, Set<String> projectNames) {
+		IResource resource = (IResource) element.getAdapter(IResource.class);
+		if (resource != null && resource.getProject() != null) {
+			projectNames.add(resource.getProject().getName());
+		}
+	}
+}
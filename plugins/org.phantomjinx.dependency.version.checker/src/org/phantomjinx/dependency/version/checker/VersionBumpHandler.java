@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2012, Paul Richardson (phantomjinx). All rights reserved.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.phantomjinx.dependency.version.checker;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.osgi.framework.Version;
+import org.phantomjinx.common.jobs.AbstractCoordinatedHandler;
+import org.phantomjinx.common.jobs.CoordinatedJob;
+import org.phantomjinx.common.jobs.JobCoordinator;
+
+/**
+ * Bumps the Bundle-Version of the selected workspace plugins and
+ * rewrites the Require-Bundle ranges of the plugins requiring them to
+ * the new versions.
+ *
+ * The new versions of the bumped plugins are worked out before any
+ * manifest is edited, so every range is rewritten to a final version
+ * even within a Require-Bundle cycle. The plugins are processed in
+ * waves following the Require-Bundle graph, the manifests of a wave
+ * being edited in parallel, and nothing is written until every wave is
+ * complete, at which point all the manifests are written in a single
+ * workspace operation.
+ *
+ * The editing only holds off the other tools. The manifests' rules are
+ * taken for the write alone, so builds and editors are free until then,
+ * and the write is abandoned if any manifest changed in the meantime.
+ * If the manifest of a bumped plugin cannot be edited the whole run is
+ * abandoned without writing anything.
+ */
+public class VersionBumpHandler extends AbstractCoordinatedHandler {
+
+	/**
+	 * Family of the bundle version bumping jobs
+	 */
+	public static final String VERSION_BUMP_FAMILY = "org.phantomjinx.dependency.version.bump"; //$NON-NLS-1$
+
+	/**
+	 * Command parameter naming the version segment to bump
+	 */
+	public static final String SEGMENT_PARAMETER = "org.phantomjinx.dependency.version.bump.segment"; //$NON-NLS-1$
+
+	/**
+	 * Bump the major version, resetting the minor and micro versions
+	 */
+	public static final String SEGMENT_MAJOR = "major"; //$NON-NLS-1$
+
+	/**
+	 * Bump the minor version, resetting the micro version
+	 */
+	public static final String SEGMENT_MINOR = "minor"; //$NON-NLS-1$
+
+	/**
+	 * Bump the micro version, the default
+	 */
+	public static final String SEGMENT_MICRO = "micro"; //$NON-NLS-1$
+
+	private static final String PLUGIN_ID = "org.phantomjinx.dependency.version.checker"; //$NON-NLS-1$
+
+	private static final String DOT = "."; //$NON-NLS-1$
+
+	private static final String COMMA = ","; //$NON-NLS-1$
+
+	private static final String OPEN_SQUARE_BRACKET = "["; //$NON-NLS-1$
+
+	private static final String CLOSE_BRACKET = ")"; //$NON-NLS-1$
+
+	private static final String META_INF = "META-INF"; //$NON-NLS-1$
+
+	private static final String MANIFEST_FILENAME = "MANIFEST.MF"; //$NON-NLS-1$
+
+	private static final String BUNDLE_VERSION = "Bundle-Version"; //$NON-NLS-1$
+
+	private static final String REQUIRE_BUNDLE = "Require-Bundle"; //$NON-NLS-1$
+
+	private static final String BUNDLE_VERSION_ATTRIBUTE = "bundle-version"; //$NON-NLS-1$
+
+	private Logger logger = Logger
+			.getLogger(this.getClass().getCanonicalName());
+
+	/**
+	 * The contents of a manifest as it was read and as it is to be written
+	 */
+	private static class ManifestEdit {
+
+		private final byte[] original;
+
+		private final byte[] contents;
+
+		private ManifestEdit(byte[] original, byte[] contents) {
+			this.original = original;
+			this.contents = contents;
+		}
+	}
+
+	/**
+	 * Job bumping the versions of the given bundles. Bumping twice is
+	 * rarely intended so duplicate requests made while it is waiting are
+	 * dropped rather than merged.
+	 */
+	private class VersionBumpJob extends CoordinatedJob {
+
+		private final Set<String> bundleNames;
+
+		private final String segment;
+
+		public VersionBumpJob(Set<String> bundleNames, String segment) {
+			super("Bundle Version Bumping", VERSION_BUMP_FAMILY, null); //$NON-NLS-1$
+			this.bundleNames = bundleNames;
+			this.segment = segment;
+		}
+
+		@Override
+		protected void coalesce(CoordinatedJob duplicate) {
+			logger.warning("A version bump is already waiting to run, ignoring " //$NON-NLS-1$
+					+ ((VersionBumpJob) duplicate).bundleNames);
+		}
+
+		@Override
+		public IStatus run(IProgressMonitor monitor) {
+			try {
+				Map<IFile, ManifestEdit> edits;
+				IJobManager jobManager = Job.getJobManager();
+				try {
+					jobManager.beginRule(JobCoordinator.TOOLS_RULE, monitor);
+					edits = editManifests(bundleNames, segment, monitor);
+				}
+				finally {
+					jobManager.endRule(JobCoordinator.TOOLS_RULE);
+				}
+
+				if (!edits.isEmpty()) {
+					writeManifests(edits, monitor);
+				}
+			}
+			catch (CoreException ex) {
+				// Reported by the job manager along with the cause
+				logger.severe(ex.getMessage());
+				return ex.getStatus();
+			}
+			catch (OperationCanceledException ex) {
+				return Status.CANCEL_STATUS;
+			}
+			finally {
+				monitor.done();
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	public VersionBumpHandler() {
+		super(VERSION_BUMP_FAMILY);
+	}
+
+	@Override
+	protected CoordinatedJob createJob(ExecutionEvent event) {
+		String segment = event.getParameter(SEGMENT_PARAMETER);
+		if (segment == null) {
+			segment = SEGMENT_MICRO;
+		}
+
+		Set<String> bundleNames = ProjectSelection.getProjectNames(event);
+		if (bundleNames.isEmpty()) {
+			logger.info("No plugin projects selected"); //$NON-NLS-1$
+			return null;
+		}
+
+		return new VersionBumpJob(bundleNames, segment);
+	}
+
+	/**
+	 * Work out the manifests of the given bundles with their versions
+	 * bumped and the ranges of their dependents moved up to match
+	 *
+	 * @param selectedNames
+	 * @param segment
+	 * @param monitor
+	 * @return the edits to write, empty if there is nothing to bump
+	 * @throws CoreException
+	 */
+	private Map<IFile, ManifestEdit> editManifests(Set<String> selectedNames, String segment, IProgressMonitor monitor) throws CoreException {
+		BundleDependencyGraph graph = ProjectSelection.getWorkspaceGraph();
+
+		final Map<IFile, ManifestEdit> edits = new LinkedHashMap<IFile, ManifestEdit>();
+		Set<String> bumpedNames = new LinkedHashSet<String>(selectedNames);
+		bumpedNames.retainAll(graph.getBundles());
+		if (bumpedNames.isEmpty()) {
+			logger.info("None of the selected projects are plugins"); //$NON-NLS-1$
+			return edits;
+		}
+
+		// Known up front so that no range can be written against a version still to be bumped
+		final Map<String, Version> newVersions = new HashMap<String, Version>();
+		for (String name : bumpedNames) {
+			Version version = graph.getModel(name).getBundleDescription().getVersion();
+			newVersions.put(name, bump(version, segment));
+			logger.info(name + ": " + version + " -> " + newVersions.get(name)); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		Set<String> affectedNames = graph.getDependentClosure(bumpedNames);
+		List<Set<String>> waves = graph.getTopologicalWaves(affectedNames);
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		monitor.beginTask("Bumping bundle versions", affectedNames.size() + 1); //$NON-NLS-1$
+
+		try {
+			for (Set<String> wave : waves) {
+				logger.info("Updating manifests of " + wave); //$NON-NLS-1$
+
+				Map<String, Future<ManifestEdit>> futures = new LinkedHashMap<String, Future<ManifestEdit>>();
+				for (final String name : wave) {
+					futures.put(name, executor.submit(new Callable<ManifestEdit>() {
+						@Override
+						public ManifestEdit call() throws Exception {
+							return editManifest(name, newVersions);
+						}
+					}));
+				}
+
+				for (Entry<String, Future<ManifestEdit>> entry : futures.entrySet()) {
+					if (monitor.isCanceled()) {
+						throw new OperationCanceledException();
+					}
+
+					String name = entry.getKey();
+					ManifestEdit edit = entry.getValue().get();
+					if (edit != null) {
+						edits.put(getManifest(name), edit);
+					}
+					monitor.worked(1);
+				}
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		}
+		catch (ExecutionException ex) {
+			// Nothing has been written yet so every manifest is left untouched
+			throw new CoreException(new Status(IStatus.ERROR, PLUGIN_ID,
+					"Failed to update manifests, no versions have been bumped", ex.getCause())); //$NON-NLS-1$
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		return edits;
+	}
+
+	/**
+	 * Write the edited manifests in a single workspace operation holding
+	 * only their rules and the tools rule
+	 *
+	 * @param edits
+	 * @param monitor
+	 * @throws CoreException
+	 */
+	private void writeManifests(final Map<IFile, ManifestEdit> edits, IProgressMonitor monitor) throws CoreException {
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		List<ISchedulingRule> rules = new ArrayList<ISchedulingRule>();
+		rules.add(JobCoordinator.TOOLS_RULE);
+		for (IFile manifestIFile : edits.keySet()) {
+			rules.add(workspace.getRuleFactory().modifyRule(manifestIFile));
+		}
+
+		monitor.subTask("Writing manifests..."); //$NON-NLS-1$
+		workspace.run(new IWorkspaceRunnable() {
+			@Override
+			public void run(IProgressMonitor monitor) throws CoreException {
+				// The manifests were read without their rules so check none has changed since
+				for (Entry<IFile, ManifestEdit> entry : edits.entrySet()) {
+					File manifestFile = entry.getKey().getRawLocation().makeAbsolute().toFile();
+					try {
+						if (!Arrays.equals(ManifestEditor.read(manifestFile).getBytes(), entry.getValue().original)) {
+							throw new CoreException(new Status(IStatus.ERROR, PLUGIN_ID,
+									manifestFile.getAbsolutePath() + " changed while bumping, no versions have been bumped")); //$NON-NLS-1$
+						}
+					}
+					catch (IOException ex) {
+						throw new CoreException(new Status(IStatus.ERROR, PLUGIN_ID,
+								"Failed to read manifest file " + manifestFile.getAbsolutePath(), ex)); //$NON-NLS-1$
+					}
+				}
+
+				for (Entry<IFile, ManifestEdit> entry : edits.entrySet()) {
+					entry.getKey().setContents(new ByteArrayInputStream(entry.getValue().contents), IResource.FORCE | IResource.KEEP_HISTORY, monitor);
+				}
+			}
+		}, MultiRule.combine(rules.toArray(new ISchedulingRule[rules.size()])), IWorkspace.AVOID_UPDATE, monitor);
+	}
+
+	/**
+	 * Edit the manifest of the given bundle in memory, bumping its own
+	 * version if it is one of the bumped bundles and moving its ranges on
+	 * any bumped bundles up to their new versions.
+	 *
+	 * @param name
+	 * @param newVersions the new versions of the bumped bundles
+	 * @return the edit of the manifest or null if unchanged
+	 * @throws IOException if the manifest of a bumped bundle cannot be edited
+	 */
+	private ManifestEdit editManifest(String name, Map<String, Version> newVersions) throws IOException {
+		IFile manifestIFile = getManifest(name);
+		if (!manifestIFile.exists()) {
+			if (newVersions.containsKey(name)) {
+				// Its dependents would otherwise be moved onto a version that never existed
+				throw new IOException("Cannot get the manifest for plugin " + name); //$NON-NLS-1$
+			}
+
+			logger.severe("Cannot get the manifest for plugin " + name); //$NON-NLS-1$
+			return null;
+		}
+
+		ManifestEditor editor = ManifestEditor.read(manifestIFile.getRawLocation().makeAbsolute().toFile());
+		byte[] original = editor.getBytes();
+		boolean changed = false;
+
+		if (newVersions.containsKey(name)) {
+			editor.setHeaderValue(BUNDLE_VERSION, newVersions.get(name).toString());
+			changed = true;
+		}
+
+		List<String> clauses = new ArrayList<String>();
+		for (String clause : editor.getClauses(REQUIRE_BUNDLE)) {
+			String requiredName = ManifestEditor.getClauseName(clause);
+			if (newVersions.containsKey(requiredName)) {
+				clause = ManifestEditor.setClauseAttribute(clause, BUNDLE_VERSION_ATTRIBUTE, toRange(newVersions.get(requiredName)));
+				changed = true;
+			}
+			clauses.add(clause);
+		}
+
+		if (!changed) {
+			return null;
+		}
+
+		editor.setClauses(REQUIRE_BUNDLE, clauses);
+		return new ManifestEdit(original, editor.getBytes());
+	}
+
+	private IFile getManifest(String name) {
+		return ResourcesPlugin.getWorkspace().getRoot().getProject(name).getFolder(META_INF).getFile(MANIFEST_FILENAME);
+	}
+
+	private Version bump(Version version, String segment) {
+		if (SEGMENT_MAJOR.equals(segment)) {
+			return new Version(version.getMajor() + 1, 0, 0, version.getQualifier());
+		}
+		if (SEGMENT_MINOR.equals(segment)) {
+			return new Version(version.getMajor(), version.getMinor() + 1, 0, version.getQualifier());
+		}
+
+		return new Version(version.getMajor(), version.getMinor(), version.getMicro() + 1, version.getQualifier());
+	}
+
+	/**
+	 * @param version
+	 * @return the range from the version up to the next major version
+	 */
+	private String toRange(Version version) {
+		String minVersion = version.getMajor() + DOT + version.getMinor() + DOT + version.getMicro();
+		String maxVersion = (version.getMajor() + 1) + DOT + 0 + DOT + 0;
+		return OPEN_SQUARE_BRACKET + minVersion + COMMA + maxVersion + CLOSE_BRACKET;
+	}
+}
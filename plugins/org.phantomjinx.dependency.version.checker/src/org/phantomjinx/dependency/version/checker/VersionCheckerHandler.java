@@ -25,13 +25,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.eclipse.core.commands.ExecutionEvent;
-import org.eclipse.core.commands.IHandler;
-import org.eclipse.core.commands.IHandlerListener;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
@@ -40,18 +41,20 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.service.resolver.BundleSpecification;
 import org.eclipse.pde.core.plugin.IPluginModelBase;
 import org.eclipse.pde.internal.core.PDECore;
 import org.eclipse.pde.internal.core.PluginModelManager;
 import org.osgi.framework.Version;
+import org.phantomjinx.common.jobs.AbstractCoordinatedHandler;
+import org.phantomjinx.common.jobs.CoordinatedJob;
+import org.phantomjinx.common.jobs.JobCoordinator;
 
 /**
  *
  */
-public class VersionCheckerHandler implements IHandler {
+public class VersionCheckerHandler extends AbstractCoordinatedHandler {
 
 	private static final String DOT = "."; //$NON-NLS-1$
 
@@ -81,41 +84,156 @@ public class VersionCheckerHandler implements IHandler {
 	
 	private static final Version ZERO = new Version(0, 0, 0);
 
+	/**
+	 * Family of the dependency version checker jobs
+	 */
+	public static final String VERSION_CHECK_FAMILY = "org.phantomjinx.dependency.version.checker"; //$NON-NLS-1$
+
+	/**
+	 * Command parameter restricting which projects are checked
+	 */
+	public static final String SCOPE_PARAMETER = "org.phantomjinx.dependency.version.checker.scope"; //$NON-NLS-1$
+
+	/**
+	 * Check every project in the workspace, the default
+	 */
+	public static final String SCOPE_WORKSPACE = "workspace"; //$NON-NLS-1$
+
+	/**
+	 * Check only the selected projects
+	 */
+	public static final String SCOPE_SELECTION = "selection"; //$NON-NLS-1$
+
+	/**
+	 * Check the selected projects and every workspace project they require
+	 */
+	public static final String SCOPE_REQUIRED = "required"; //$NON-NLS-1$
+
+	/**
+	 * Check the selected projects and the workspace projects requiring them
+	 */
+	public static final String SCOPE_DEPENDENTS = "dependents"; //$NON-NLS-1$
+
 	private Logger logger = Logger
 			.getLogger(this.getClass().getCanonicalName());
 
-	@Override
-	public Object execute(ExecutionEvent event) {
+	/**
+	 * Job checking the versions of the selected bundles. Duplicate
+	 * requests made while it is waiting add their projects and scopes to
+	 * it, each project being expanded by every scope requested.
+	 */
+	private class VersionCheckJob extends CoordinatedJob {
 
-		Job job = new Job("Dependency Checking") { //$NON-NLS-1$
+		private Set<String> projectNames;
 
-			@Override
-			public IStatus run(IProgressMonitor monitor) {
-				try {
-					versionProjects(monitor);
-				}
-				catch (CoreException ex) {
-					logger.severe(ex.getMessage());
-					ex.printStackTrace();
-					return Status.CANCEL_STATUS;
+		private final Set<String> scopes = new HashSet<String>();
+
+		/**
+		 * @param projectNames the selected projects or null for the whole workspace
+		 * @param scope
+		 */
+		public VersionCheckJob(Set<String> projectNames, String scope) {
+			// Manifests are written through java.io so only the tools need holding off
+			super("Dependency Checking", VERSION_CHECK_FAMILY, JobCoordinator.TOOLS_RULE); //$NON-NLS-1$
+			this.projectNames = projectNames;
+			this.scopes.add(scope);
+		}
+
+		private synchronized Set<String> getProjectNames() {
+			return projectNames;
+		}
+
+		private synchronized Set<String> getScopes() {
+			return scopes;
+		}
+
+		@Override
+		protected synchronized void coalesce(CoordinatedJob duplicate) {
+			VersionCheckJob duplicateJob = (VersionCheckJob) duplicate;
+			Set<String> duplicateNames = duplicateJob.getProjectNames();
+			if (projectNames == null || duplicateNames == null) {
+				projectNames = null;
+			} else {
+				projectNames.addAll(duplicateNames);
+			}
+			scopes.addAll(duplicateJob.getScopes());
+		}
+
+		@Override
+		public IStatus run(IProgressMonitor monitor) {
+			try {
+				Set<String> bundleNames = null;
+				if (getProjectNames() != null) {
+					bundleNames = getScopedBundles(getProjectNames(), getScopes());
+					if (bundleNames.isEmpty()) {
+						logger.info("None of the selected projects are plugins"); //$NON-NLS-1$
+						return Status.OK_STATUS;
+					}
 				}
-				return Status.OK_STATUS;
+
+				versionProjects(bundleNames, monitor);
 			}
-		};
+			catch (CoreException ex) {
+				logger.severe(ex.getMessage());
+				ex.printStackTrace();
+				return Status.CANCEL_STATUS;
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	public VersionCheckerHandler() {
+		super(VERSION_CHECK_FAMILY);
+	}
+
+	@Override
+	protected CoordinatedJob createJob(ExecutionEvent event) {
+		String scope = event.getParameter(SCOPE_PARAMETER);
+		if (scope == null || SCOPE_WORKSPACE.equals(scope)) {
+			return new VersionCheckJob(null, SCOPE_WORKSPACE);
+		}
+
+		// Only the selection is read here, the graph is left to the job
+		Set<String> projectNames = ProjectSelection.getProjectNames(event);
+		if (projectNames.isEmpty()) {
+			logger.info("No projects selected"); //$NON-NLS-1$
+			return null;
+		}
+
+		return new VersionCheckJob(projectNames, scope);
+	}
+
+	/**
+	 * Find the plugin projects among the selected projects and expand
+	 * them according to the scopes.
+	 *
+	 * @param projectNames
+	 * @param scopes
+	 * @return the names of the bundles to check
+	 */
+	private Set<String> getScopedBundles(Set<String> projectNames, Set<String> scopes) {
+		BundleDependencyGraph graph = ProjectSelection.getWorkspaceGraph();
+		Set<String> bundleNames = new LinkedHashSet<String>(projectNames);
+		bundleNames.retainAll(graph.getBundles());
+
+		if (scopes.contains(SCOPE_REQUIRED)) {
+			bundleNames.addAll(graph.getRequiredClosure(projectNames));
+		}
+		if (scopes.contains(SCOPE_DEPENDENTS)) {
+			bundleNames.addAll(graph.getDependentClosure(projectNames));
+		}
 
-		job.setPriority(Job.LONG);
-		job.schedule();
-		return null;
+		return bundleNames;
 	}
 
 	/**
-	 * Version dependencies of all projects:
+	 * Version dependencies of the given projects:
 	 * 
-	 * @param projectDirectory
+	 * @param bundleNames the bundles to version or null for all projects
 	 * @param monitor
 	 * @throws CoreException
 	 */
-	private void versionProjects(IProgressMonitor monitor) throws CoreException {
+	private void versionProjects(Set<String> bundleNames, IProgressMonitor monitor) throws CoreException {
 		Map<String, IProject> projectMap = new HashMap<String, IProject>();
 		IProject[] projects = ResourcesPlugin.getWorkspace().getRoot().getProjects();
 		if (projects == null) {
@@ -131,6 +249,9 @@ public class VersionCheckerHandler implements IHandler {
 		
 		for (IPluginModelBase pluginModel : pluginModels) {
 			BundleDescription bundleDescription = pluginModel.getBundleDescription();
+			if (bundleNames != null && !bundleNames.contains(bundleDescription.getSymbolicName())) {
+				continue;
+			}
 			
 			IProject project = projectMap.get(bundleDescription.getSymbolicName());
 			if (project == null) {
@@ -281,29 +402,4 @@ public class VersionCheckerHandler implements IHandler {
 		writer.write(buf.toString());
 		writer.close();
 	}
-
-	@Override
-	public boolean isEnabled() {
-		return true;
-	}
-
-	@Override
-	public boolean isHandled() {
-		return true;
-	}
-
-	@Override
-	public void addHandlerListener(IHandlerListener handlerListener) {
-		// Not required
-	}
-
-	@Override
-	public void dispose() {
-		// TODO Auto-generated method stub
-	}
-
-	@Override
-	public void removeHandlerListener(IHandlerListener handlerListener) {
-		// No Required
-	}
 }
@@ -27,8 +27,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 import org.eclipse.core.commands.ExecutionEvent;
-import org.eclipse.core.commands.IHandler;
-import org.eclipse.core.commands.IHandlerListener;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IProjectDescription;
 import org.eclipse.core.resources.IResource;
@@ -42,7 +40,7 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
-import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
 import org.eclipse.jdt.ui.JavaUI;
 import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Display;
@@ -51,17 +49,67 @@ import org.eclipse.ui.IWorkingSet;
 import org.eclipse.ui.IWorkingSetManager;
 import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.PlatformUI;
+import org.phantomjinx.common.jobs.AbstractCoordinatedHandler;
+import org.phantomjinx.common.jobs.CoordinatedJob;
+import org.phantomjinx.common.jobs.JobCoordinator;
 
 @SuppressWarnings( "nls" )
-public class RefreshProjectHandler implements IHandler {
+public class RefreshProjectHandler extends AbstractCoordinatedHandler {
+
+	/**
+	 * Family of the project synchronizer jobs
+	 */
+	public static final String SYNCHRONIZE_FAMILY = "org.phantomjinx.project.synchronizer"; //$NON-NLS-1$
 
 	private static final String DOT_PROJECT_FILE = ".project"; //$NON-NLS-1$
 
 	private Logger logger = Logger
 			.getLogger(this.getClass().getCanonicalName());
 
+	/**
+	 * Job synchronizing the workspace against a directory. Duplicate
+	 * requests made while it is waiting take on the newest directory.
+	 */
+	private class SynchronizeJob extends CoordinatedJob {
+
+		private String projectDirectory;
+
+		public SynchronizeJob(String projectDirectory) {
+			// Imports and deletes projects so needs the whole workspace
+			super("Project synchronizer", SYNCHRONIZE_FAMILY, //$NON-NLS-1$
+					MultiRule.combine(JobCoordinator.TOOLS_RULE, ResourcesPlugin.getWorkspace().getRoot()));
+			this.projectDirectory = projectDirectory;
+		}
+
+		private synchronized String getProjectDirectory() {
+			return projectDirectory;
+		}
+
+		@Override
+		protected synchronized void coalesce(CoordinatedJob duplicate) {
+			projectDirectory = ((SynchronizeJob) duplicate).getProjectDirectory();
+		}
+
+		@Override
+		public IStatus run(IProgressMonitor monitor) {
+			try {
+				synchronizeProjects(getProjectDirectory(), monitor);
+			}
+			catch (CoreException ex) {
+				logger.severe(ex.getMessage());
+				ex.printStackTrace();
+				return Status.CANCEL_STATUS;
+			}
+			return Status.OK_STATUS;
+		}
+	}
+
+	public RefreshProjectHandler() {
+		super(SYNCHRONIZE_FAMILY);
+	}
+
 	@Override
-	public Object execute(ExecutionEvent event) {
+	protected CoordinatedJob createJob(ExecutionEvent event) {
 
 		// Choose the directory to refresh from
 		final String projectDirectory = getChosenDirectory();
@@ -69,25 +117,7 @@ public class RefreshProjectHandler implements IHandler {
 			return null;
 		}
 
-		Job job = new Job("Project synchronizer") { //$NON-NLS-1$
-
-			@Override
-			public IStatus run(IProgressMonitor monitor) {
-				try {
-					synchronizeProjects(projectDirectory, monitor);
-				}
-				catch (CoreException ex) {
-					logger.severe(ex.getMessage());
-					ex.printStackTrace();
-					return Status.CANCEL_STATUS;
-				}
-				return Status.OK_STATUS;
-			}
-		};
-
-		job.setPriority(Job.LONG);
-		job.schedule();
-		return null;
+		return new SynchronizeJob(projectDirectory);
 	}
 
 	/**
@@ -406,29 +436,4 @@ public class RefreshProjectHandler implements IHandler {
 		return dir;
 	}
 
-	@Override
-	public boolean isEnabled() {
-		return true;
-	}
-
-	@Override
-	public boolean isHandled() {
-		return true;
-	}
-
-	@Override
-	public void addHandlerListener(IHandlerListener handlerListener) {
-		// Not required
-	}
-
-	@Override
-	public void dispose() {
-		// TODO Auto-generated method stub
-	}
-
-	@Override
-	public void removeHandlerListener(IHandlerListener handlerListener) {
-		// No Required
-	}
-
 }